@@ -0,0 +1,481 @@
+package com.happytheapp.react.RNTwilioVoiceSDK;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.happytheapp.react.RNTwilioVoiceSDK.TwilioVoiceSDKModule.TAG;
+
+/*
+ * Append-only call history log.
+ *
+ * The file starts with an 8 byte header (magic + version) followed by
+ * length-prefixed records. Records are only ever appended, reads go through
+ * a read-only memory mapping of the file, and an in-memory index by end time
+ * and by call SID is rebuilt from the log when the store is opened. Once the
+ * log holds more than maxRecords (plus some slack) it is compacted by
+ * rewriting the newest maxRecords records into a fresh file.
+ *
+ * Appends and compaction run on a single writer thread so that the call
+ * listener callbacks never wait on disk I/O. Reads wait for the appends queued
+ * before them, so a record appended before an event is visible to its handlers.
+ */
+public class CallHistoryStore {
+
+    private static final String FILE_NAME = "RNTwilioVoiceSDK-call-history.log";
+    private static final int MAGIC = 0x524E4348; // "RNCH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // startedAt + connectedAt + endedAt + errorCode + 4 empty strings
+    private static final int MIN_PAYLOAD_SIZE = 8 + 8 + 8 + 4 + 4 * 2;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int INITIAL_INDEX_CAPACITY = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_MAX_RECORDS = 50000;
+
+    public static class Record {
+        public final String sid;
+        public final String from;
+        public final String to;
+        public final long startedAt;
+        public final long connectedAt;
+        public final long endedAt;
+        public final int errorCode;
+        public final String errorMessage;
+
+        public Record(String sid, String from, String to,
+                      long startedAt, long connectedAt, long endedAt,
+                      int errorCode, String errorMessage) {
+            this.sid = sid;
+            this.from = from;
+            this.to = to;
+            this.startedAt = startedAt;
+            this.connectedAt = connectedAt;
+            this.endedAt = endedAt;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+        }
+
+        public long getDuration() {
+            if (connectedAt <= 0 || endedAt < connectedAt) {
+                return 0;
+            }
+            return endedAt - connectedAt;
+        }
+    }
+
+    public static class Page {
+        public final List<Record> records;
+        // null when there are no older records in the queried range
+        public final String nextCursor;
+
+        Page(List<Record> records, String nextCursor) {
+            this.records = records;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private final File file;
+    private final int maxRecords;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private MappedByteBuffer mapped;
+    private int mappedSize;
+    private int fileSize;
+
+    // Parallel arrays sorted by endedAt, pointing at record offsets in the log
+    private long[] indexTimes;
+    private int[] indexOffsets;
+    private int indexSize;
+    private HashMap<String, Integer> sidIndex;
+
+    public CallHistoryStore(File directory) {
+        this(directory, DEFAULT_MAX_RECORDS);
+    }
+
+    public CallHistoryStore(File directory, int maxRecords) {
+        this.file = new File(directory, FILE_NAME);
+        this.maxRecords = maxRecords;
+    }
+
+    public void append(final Record record) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                appendNow(record);
+            }
+        });
+    }
+
+    private synchronized void appendNow(Record record) {
+        try {
+            open();
+            byte[] bytes = encode(record);
+            FileOutputStream out = new FileOutputStream(file, true);
+            try {
+                // A single write keeps a crash from tearing anything but the tail record
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            addToIndex(record.endedAt, fileSize, record.sid);
+            fileSize += bytes.length;
+            if (indexSize > maxRecords + maxRecords / 10) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to append call history record", e);
+            // The log may now end in a partial record, scan and truncate it on the next open
+            mapped = null;
+        }
+    }
+
+    /*
+     * Returns records whose end time is in [from, to), newest first. To fetch the
+     * next page pass the returned nextCursor along with the same range.
+     *
+     * The cursor is the endedAt of the last returned record plus how many records
+     * with that same endedAt were already returned, so records ending in the same
+     * millisecond are neither skipped nor repeated.
+     */
+    public Page query(long from, long to, int limit, String cursor) throws IOException {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Call history limit must be positive, got " + limit);
+        }
+        awaitPendingWrites();
+        return queryNow(from, to, limit, cursor);
+    }
+
+    private synchronized Page queryNow(long from, long to, int limit, String cursor) throws IOException {
+        open();
+        remapIfNeeded();
+        int lo = lowerBound(from);
+        int hi = lowerBound(to);
+        if (cursor != null) {
+            int separator = cursor.indexOf(':');
+            try {
+                long cursorTime = Long.parseLong(cursor.substring(0, separator));
+                int returned = Integer.parseInt(cursor.substring(separator + 1));
+                hi = Math.min(hi, lowerBound(cursorTime + 1) - returned);
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid call history cursor: " + cursor);
+            }
+        }
+        List<Record> records = new ArrayList<>();
+        int i = hi - 1;
+        while (i >= lo && records.size() < limit) {
+            records.add(decode(indexOffsets[i]));
+            i--;
+        }
+        String nextCursor = null;
+        if (i >= lo && !records.isEmpty()) {
+            long lastTime = indexTimes[i + 1];
+            nextCursor = lastTime + ":" + (lowerBound(lastTime + 1) - (i + 1));
+        }
+        return new Page(records, nextCursor);
+    }
+
+    public Record findBySid(String sid) throws IOException {
+        awaitPendingWrites();
+        return findBySidNow(sid);
+    }
+
+    private synchronized Record findBySidNow(String sid) throws IOException {
+        open();
+        Integer offset = sidIndex.get(sid);
+        if (offset == null) {
+            return null;
+        }
+        remapIfNeeded();
+        return decode(offset);
+    }
+
+    // Must not be called while holding the store lock, the writer thread needs it
+    private void awaitPendingWrites() throws IOException {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() { }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for call history writes", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed waiting for call history writes", e);
+        }
+    }
+
+    private synchronized void compact() throws IOException {
+        open();
+        remapIfNeeded();
+        int first = Math.max(0, indexSize - maxRecords);
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        OutputStream out = new BufferedOutputStream(fileOut);
+        try {
+            writeHeader(out);
+            byte[] buffer = new byte[512];
+            for (int i = first; i < indexSize; i++) {
+                int offset = indexOffsets[i];
+                int length = 4 + mapped.getInt(offset);
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                ByteBuffer source = mapped.duplicate();
+                source.position(offset);
+                source.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+            // Make sure the new log is on disk before it replaces the old one
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace call history log");
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "compacted call history from " + indexSize + " to " + (indexSize - first) + " records");
+        }
+        mapped = null;
+        open();
+    }
+
+    // region log file
+    private void open() throws IOException {
+        if (mapped != null) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+            }
+            fileSize = (int) raf.length();
+            map(raf.getChannel());
+            resetIndex();
+            int offset = HEADER_SIZE;
+            while (offset + 4 <= fileSize) {
+                int length = mapped.getInt(offset);
+                if (length < MIN_PAYLOAD_SIZE || offset + 4 + length > fileSize) {
+                    break;
+                }
+                if (!indexRecord(offset, length)) {
+                    break;
+                }
+                offset += 4 + length;
+            }
+            if (offset != fileSize) {
+                // Drop a record that was only partially written or is corrupted, and everything after it
+                Log.e(TAG, "Truncating call history log at bad record " + offset);
+                raf.setLength(offset);
+                fileSize = offset;
+                map(raf.getChannel());
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /*
+     * Adds the record at offset to the index, reading only endedAt and the SID
+     * and checking the other fields stay within the record without decoding them.
+     */
+    private boolean indexRecord(int offset, int length) {
+        int end = offset + 4 + length;
+        ByteBuffer buf = mapped.duplicate();
+        buf.limit(end);
+        buf.position(offset + 4 + 16);
+        long endedAt = buf.getLong();
+        buf.position(buf.position() + 4);
+        int sidLength = buf.getShort() & 0xFFFF;
+        if (buf.remaining() < sidLength) {
+            return false;
+        }
+        String sid = null;
+        if (sidLength > 0) {
+            byte[] bytes = new byte[sidLength];
+            buf.get(bytes);
+            sid = new String(bytes, UTF_8);
+        }
+        // from, to and errorMessage
+        for (int i = 0; i < 3; i++) {
+            if (buf.remaining() < 2) {
+                return false;
+            }
+            int stringLength = buf.getShort() & 0xFFFF;
+            if (buf.remaining() < stringLength) {
+                return false;
+            }
+            buf.position(buf.position() + stringLength);
+        }
+        if (buf.position() != end) {
+            return false;
+        }
+        addToIndex(endedAt, offset, sid);
+        return true;
+    }
+
+    private void map(FileChannel channel) throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        mappedSize = fileSize;
+    }
+
+    private void remapIfNeeded() throws IOException {
+        if (mappedSize == fileSize) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            map(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeHeader(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.flush();
+    }
+    // endregion
+
+    // region index
+    private void resetIndex() {
+        indexTimes = new long[INITIAL_INDEX_CAPACITY];
+        indexOffsets = new int[INITIAL_INDEX_CAPACITY];
+        indexSize = 0;
+        sidIndex = new HashMap<>();
+    }
+
+    private void addToIndex(long time, int offset, String sid) {
+        if (indexSize == indexTimes.length) {
+            indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        // Records are appended in end time order, so this is the tail unless the clock moved back
+        int position = indexSize;
+        while (position > 0 && indexTimes[position - 1] > time) {
+            position--;
+        }
+        System.arraycopy(indexTimes, position, indexTimes, position + 1, indexSize - position);
+        System.arraycopy(indexOffsets, position, indexOffsets, position + 1, indexSize - position);
+        indexTimes[position] = time;
+        indexOffsets[position] = offset;
+        indexSize++;
+        if (sid != null) {
+            sidIndex.put(sid, offset);
+        }
+    }
+
+    private int lowerBound(long time) {
+        int lo = 0;
+        int hi = indexSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexTimes[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    // endregion
+
+    // region record encoding
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeLong(record.startedAt);
+        data.writeLong(record.connectedAt);
+        data.writeLong(record.endedAt);
+        data.writeInt(record.errorCode);
+        writeString(data, record.sid);
+        writeString(data, record.from);
+        writeString(data, record.to);
+        writeString(data, record.errorMessage);
+        data.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + payload.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Parses the record at offset, reading only within its length prefix. Fails
+     * unless the fields consume exactly the record's payload.
+     */
+    private Record decode(int offset) throws IOException {
+        try {
+            ByteBuffer buf = mapped.duplicate();
+            int end = offset + 4 + buf.getInt(offset);
+            buf.limit(end);
+            buf.position(offset + 4);
+            long startedAt = buf.getLong();
+            long connectedAt = buf.getLong();
+            long endedAt = buf.getLong();
+            int errorCode = buf.getInt();
+            String sid = readString(buf);
+            String from = readString(buf);
+            String to = readString(buf);
+            String errorMessage = readString(buf);
+            if (buf.position() != end) {
+                throw new IOException("Call history record at " + offset + " has trailing bytes");
+            }
+            return new Record(sid, from, to, startedAt, connectedAt, endedAt, errorCode, errorMessage);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted call history record at " + offset, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xFFFF;
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+    // endregion
+}
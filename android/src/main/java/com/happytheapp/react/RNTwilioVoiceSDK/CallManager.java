@@ -0,0 +1,450 @@
+package com.happytheapp.react.RNTwilioVoiceSDK;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import com.twilio.audioswitch.AudioDevice;
+import com.twilio.audioswitch.AudioDevice.BluetoothHeadset;
+import com.twilio.audioswitch.AudioDevice.Earpiece;
+import com.twilio.audioswitch.AudioDevice.Speakerphone;
+import com.twilio.audioswitch.AudioDevice.WiredHeadset;
+import com.twilio.audioswitch.AudioSwitch;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function2;
+
+import com.twilio.voice.Call;
+import com.twilio.voice.CallException;
+import com.twilio.voice.ConnectOptions;
+import com.twilio.voice.LogLevel;
+import com.twilio.voice.Voice;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_CALL_SNAPSHOT;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_CONNECTED;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_CONNECT_FAILURE;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_DISCONNECTED;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RECONNECTED;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RECONNECTING;
+import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RINGING;
+import static com.happytheapp.react.RNTwilioVoiceSDK.TwilioVoiceSDKModule.TAG;
+
+/*
+ * Owns the call for the whole process, so that a JS bundle reload or a new
+ * React context doesn't drop or orphan it. Module instances attach their
+ * EventManager when they are created and detach it when their React context
+ * is destroyed; call events are sent to the module that is attached.
+ *
+ * Call listener callbacks, React methods and host lifecycle callbacks arrive
+ * on different threads, so they all run under the CallManager lock.
+ */
+public class CallManager {
+
+    private static CallManager instance;
+
+    private Context context;
+    private Call.Listener callListener = callListener();
+    private volatile EventManager eventManager;
+    private volatile Boolean speaker = false;
+    private volatile Boolean muted = false;
+    private volatile Call activeCall;
+    private ProximityManager proximityManager;
+    protected MediaPlayer mediaPlayer;
+    private AudioSwitch audioSwitch;
+    private volatile boolean audioSwitchStarted = false;
+    private volatile boolean hostAlive = false;
+    private CallHistoryStore callHistoryStore;
+    private ConnectProfileManager connectProfileManager;
+    // Timestamps per call, a new call can start before the previous one reports its disconnect
+    private final HashMap<Call, CallTimes> callTimes = new HashMap<>();
+    private volatile boolean disconnectOnHostDestroy = false;
+
+    private static class CallTimes {
+        final long startedAt;
+        long connectedAt;
+
+        CallTimes(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+
+    public static synchronized CallManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CallManager(Context context) {
+        if (BuildConfig.DEBUG) {
+            Voice.setLogLevel(LogLevel.DEBUG);
+        } else {
+            Voice.setLogLevel(LogLevel.ERROR);
+        }
+        this.context = context;
+        proximityManager = new ProximityManager(context);
+        audioSwitch = new AudioSwitch(context);
+        callHistoryStore = new CallHistoryStore(context.getFilesDir());
+        connectProfileManager = new ConnectProfileManager(context);
+    }
+
+    // region module attachment
+    public synchronized void attach(EventManager eventManager) {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "attach event manager, active call = " + (activeCall != null));
+        }
+        this.eventManager = eventManager;
+    }
+
+    public synchronized void detach(EventManager eventManager) {
+        // A newer module may already have attached, leave it alone
+        if (this.eventManager == eventManager) {
+            this.eventManager = null;
+        }
+    }
+
+    /*
+     * Sends the current call in any state as its own event, so that a freshly
+     * loaded JS bundle picks up a call that outlived the previous one without
+     * replaying call events to app handlers.
+     */
+    public synchronized void emitCallSnapshot() {
+        if (activeCall == null) {
+            return;
+        }
+        sendEvent(EVENT_CALL_SNAPSHOT, paramsFromCall(activeCall));
+    }
+
+    private void sendEvent(String eventName, WritableMap params) {
+        EventManager attached = eventManager;
+        if (attached == null) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "no module attached, dropping event " + eventName);
+            }
+            return;
+        }
+        attached.sendEvent(eventName, params);
+    }
+    // endregion
+
+    // region host lifecycle
+    public synchronized void onHostResume() {
+        hostAlive = true;
+        if (audioSwitchStarted) {
+            return;
+        }
+        audioSwitch.start(new Function2<List<? extends AudioDevice>, AudioDevice, Unit>() {
+            @Override
+            public Unit invoke(List<? extends AudioDevice> audioDevices, AudioDevice audioDevice) {
+                return Unit.INSTANCE;
+            }
+        });
+        audioSwitchStarted = true;
+    }
+
+    public synchronized void onHostDestroy() {
+        hostAlive = false;
+        if (disconnectOnHostDestroy) {
+            disconnect();
+        }
+        // Keep routing audio for a call that survives the host
+        if (activeCall == null) {
+            stopAudioSwitch();
+        }
+    }
+
+    private void stopAudioSwitch() {
+        if (audioSwitchStarted) {
+            audioSwitch.stop();
+            audioSwitchStarted = false;
+        }
+    }
+
+    public synchronized void setDisconnectOnHostDestroy(boolean value) {
+        disconnectOnHostDestroy = value;
+    }
+    // endregion
+
+    public synchronized Call getActiveCall() {
+        return activeCall;
+    }
+
+    public CallHistoryStore getCallHistoryStore() {
+        return callHistoryStore;
+    }
+
+    public ConnectProfileManager getConnectProfileManager() {
+        return connectProfileManager;
+    }
+
+    private Call.Listener callListener() {
+        return new Call.Listener() {
+            @Override
+            public void onConnected(@NonNull Call call) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "CALL CONNECTED callListener().onConnected call state = " + call.getState());
+                    }
+                    activeCall = call;
+                    CallTimes times = callTimes.get(call);
+                    if (times != null && times.connectedAt == 0) {
+                        times.connectedAt = System.currentTimeMillis();
+                    }
+                    sendEvent(EVENT_CONNECTED, paramsFromCall(call));
+
+                    mediaPlayer.pause();
+                }
+            }
+
+            @Override
+            public void onReconnecting(@NonNull Call call, @NonNull CallException error) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "reconnecting");
+                    }
+                    activeCall = call;
+                    sendEvent(EVENT_RECONNECTING, paramsWithError(call, error));
+                }
+            }
+
+            @Override
+            public void onReconnected(@NonNull Call call) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "reconnected");
+                    }
+                    activeCall = call;
+                    sendEvent(EVENT_RECONNECTED, paramsFromCall(call));
+                }
+            }
+
+            @Override
+            public void onDisconnected(@NonNull Call call, CallException error) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "call disconnected");
+                    }
+                    if (activeCall != null && activeCall != call) {
+                        // A newer call already replaced this one, only its history is left to record
+                        recordCallHistory(call, error);
+                        return;
+                    }
+                    activeCall = call;
+                    // Record first so disconnect handlers that query the history see this call
+                    recordCallHistory(call, error);
+                    sendEvent(EVENT_DISCONNECTED, paramsWithError(call, error));
+                    call.disconnect();
+                    disconnectCleanup();
+                    activeCall = null;
+                }
+            }
+
+            @Override
+            public void onConnectFailure(@NonNull Call call, @NonNull CallException error) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "connect failure");
+                    }
+                    if (activeCall != null && activeCall != call) {
+                        // A newer call already replaced this one, only its history is left to record
+                        recordCallHistory(call, error);
+                        return;
+                    }
+                    activeCall = call;
+                    disconnectCleanup();
+                    WritableMap params = paramsWithError(call, error);
+                    recordCallHistory(call, error);
+                    call.disconnect();
+                    activeCall = null;
+                    sendEvent(EVENT_CONNECT_FAILURE, params);
+                }
+            }
+
+            @Override
+            public void onRinging(@NonNull Call call) {
+                synchronized (CallManager.this) {
+                    if (BuildConfig.DEBUG) {
+                        Log.d(TAG, "ringing");
+                    }
+                    activeCall = call;
+                    sendEvent(EVENT_RINGING, paramsFromCall(call));
+                }
+            }
+        };
+    }
+
+    protected MediaPlayer createMediaPlayer(final String fileName) {
+        int res = this.context.getResources().getIdentifier(fileName, "raw", this.context.getPackageName());
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        if (res != 0) {
+            try {
+                AssetFileDescriptor afd = this.context.getResources().openRawResourceFd(res);
+                mediaPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+                afd.close();
+            } catch (IOException e) {
+                Log.e("RNSoundModule", "Exception", e);
+                return null;
+            }
+            return mediaPlayer;
+        }
+
+        return null;
+    }
+
+    public synchronized Call connect(final String accessToken, HashMap<String, String> twiMLParams, ConnectProfile profile) {
+        speaker = false;
+        muted = false;
+
+        this.mediaPlayer = this.createMediaPlayer("dial_2");
+        try {
+            this.mediaPlayer.prepare();
+        } catch (Exception ignored) {
+            // When loading files from a file, we useMediaPlayer.create, which actually
+            // prepares the audio for us already. So we catch and ignore this error
+            Log.e("RNSoundModule", "Exception", ignored);
+        }
+
+        long startedAt = System.currentTimeMillis();
+
+        // Enable proximity monitoring
+        proximityManager.startProximitySensor();
+
+        ConnectOptions.Builder connectOptionsBuilder = new ConnectOptions.Builder(accessToken)
+                .params(twiMLParams);
+        connectProfileManager.apply(profile, connectOptionsBuilder);
+        ConnectOptions connectOptions = connectOptionsBuilder.build();
+        activeCall = Voice.connect(context, connectOptions, callListener);
+        if (activeCall == null) {
+            connectProfileManager.restoreEdge();
+        } else {
+            callTimes.put(activeCall, new CallTimes(startedAt));
+            this.mediaPlayer.setLooping(true);
+            this.mediaPlayer.seekTo(0);
+            this.mediaPlayer.start();
+        }
+        deriveAudioOutputTarget();
+        return activeCall;
+    }
+
+    public synchronized void disconnectCleanup() {
+        mediaPlayer.pause();
+        audioSwitch.deactivate();
+        setMuted(false);
+        proximityManager.stopProximitySensor();
+        connectProfileManager.restoreEdge();
+        // The call outlived its host, nothing else will stop the audio switch
+        if (!hostAlive) {
+            stopAudioSwitch();
+        }
+    }
+
+    public synchronized void disconnect() {
+        if (activeCall != null) {
+            activeCall.disconnect();
+            activeCall = null;
+        }
+    }
+
+    public synchronized void setMuted(Boolean muteValue) {
+        muted = muteValue;
+        if (activeCall != null) {
+            activeCall.mute(muteValue);
+        }
+    }
+
+    public synchronized void sendDigits(String digits) {
+        if (activeCall != null) {
+            activeCall.sendDigits(digits);
+        }
+    }
+
+    public synchronized void setSpeakerPhone(Boolean value) {
+        speaker = value;
+        deriveAudioOutputTarget();
+    }
+
+    private void deriveAudioOutputTarget() {
+        if (speaker) {
+            audioSwitch.selectDevice(new Speakerphone());
+        } else {
+            List<AudioDevice> devices = audioSwitch.getAvailableAudioDevices();
+            Boolean bt = false;
+            Boolean wired = false;
+
+            for (AudioDevice dev : devices) {
+                if (dev instanceof BluetoothHeadset) {
+                    bt = true;
+                } else if (dev instanceof WiredHeadset) {
+                    wired = true;
+                }
+            }
+
+            if (bt) {
+                audioSwitch.selectDevice(new BluetoothHeadset());
+            } else if (wired) {
+                audioSwitch.selectDevice(new WiredHeadset());
+            } else {
+                audioSwitch.selectDevice(new Earpiece());
+            }
+        }
+        audioSwitch.activate();
+    }
+
+    private void recordCallHistory(Call call, CallException error) {
+        CallTimes times = callTimes.remove(call);
+        long endedAt = System.currentTimeMillis();
+        callHistoryStore.append(new CallHistoryStore.Record(
+                call.getSid(),
+                call.getFrom(),
+                call.getTo(),
+                times != null ? times.startedAt : endedAt,
+                times != null ? times.connectedAt : 0,
+                endedAt,
+                error != null ? error.getErrorCode() : 0,
+                error != null ? error.getLocalizedMessage() : null
+        ));
+    }
+
+    // region create JSObjects helpers
+    public synchronized WritableMap paramsFromCall(Call call) {
+        WritableMap params = Arguments.createMap();
+        if (call != null) {
+            if (call.getSid() != null) {
+                params.putString("sid", call.getSid());
+            }
+            if (call.getFrom() != null) {
+                params.putString("from", call.getFrom());
+            }
+            if (call.getTo() != null) {
+                params.putString("to", call.getTo());
+            }
+            params.putString("state", call.getState().name());
+            params.putBoolean("muted", muted);
+            params.putBoolean("speaker", speaker);
+        }
+        return params;
+    }
+
+    private WritableMap paramsWithError(Call call, CallException error) {
+        WritableMap params = paramsFromCall(call);
+        if (error != null) {
+            Log.e(TAG, String.format("CallListener onDisconnected error: %d, %s",
+                    error.getErrorCode(), error.getMessage()));
+            WritableMap errorParams = Arguments.createMap();
+            errorParams.putInt("code", error.getErrorCode());
+            errorParams.putString("message", error.getLocalizedMessage());
+            params.putMap("error", errorParams);
+        }
+        return params;
+    }
+    // endregion
+}
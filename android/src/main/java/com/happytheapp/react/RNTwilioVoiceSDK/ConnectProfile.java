@@ -0,0 +1,202 @@
+package com.happytheapp.react.RNTwilioVoiceSDK;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+
+import com.twilio.voice.AudioCodec;
+import com.twilio.voice.ConnectOptions;
+import com.twilio.voice.IceOptions;
+import com.twilio.voice.IceServer;
+import com.twilio.voice.IceTransportPolicy;
+import com.twilio.voice.OpusCodec;
+import com.twilio.voice.PcmuCodec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.happytheapp.react.RNTwilioVoiceSDK.TwilioVoiceSDKModule.TAG;
+
+/*
+ * Named set of ConnectOptions settings registered once from JS.
+ * The codec list and IceOptions are built when the profile is registered
+ * so that dialing only has to hand them to the ConnectOptions.Builder.
+ * The ICE servers can expire, the ICE transport policy always applies.
+ */
+public class ConnectProfile {
+
+    public static final String NETWORK_WIFI = "wifi";
+    public static final String NETWORK_CELLULAR = "cellular";
+    public static final String NETWORK_OTHER = "other";
+
+    private final String name;
+    private final List<AudioCodec> preferredAudioCodecs;
+    private final String edge;
+    private final String networkType;
+    private final Set<IceServer> iceServers;
+    private final IceTransportPolicy iceTransportPolicy;
+    // elapsedRealtime after which the ICE servers must not be used, 0 for no expiry
+    private final long iceServersExpireAt;
+    private final IceOptions iceOptions;
+    // Used once the ICE servers expired on a profile picked by network type
+    private final IceOptions iceTransportPolicyOptions;
+
+    private ConnectProfile(String name, List<AudioCodec> preferredAudioCodecs, String edge, String networkType,
+                           Set<IceServer> iceServers, IceTransportPolicy iceTransportPolicy, long iceServersExpireAt) {
+        this.name = name;
+        this.preferredAudioCodecs = preferredAudioCodecs;
+        this.edge = edge;
+        this.networkType = networkType;
+        this.iceServers = iceServers;
+        this.iceTransportPolicy = iceTransportPolicy;
+        this.iceServersExpireAt = iceServersExpireAt;
+        this.iceOptions = buildIceOptions(iceServers, iceTransportPolicy);
+        this.iceTransportPolicyOptions = buildIceOptions(null, iceTransportPolicy);
+    }
+
+    private static IceOptions buildIceOptions(Set<IceServer> iceServers, IceTransportPolicy iceTransportPolicy) {
+        if (iceServers == null && iceTransportPolicy == null) {
+            return null;
+        }
+        IceOptions.Builder builder = new IceOptions.Builder();
+        if (iceServers != null) {
+            builder.iceServers(iceServers);
+        }
+        if (iceTransportPolicy != null) {
+            builder.iceTransportPolicy(iceTransportPolicy);
+        }
+        return builder.build();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEdge() {
+        return edge;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    /*
+     * Connecting with a profile named by the caller fails once its ICE servers
+     * expired, until it is registered again.
+     */
+    public boolean isIceServersExpired() {
+        return iceServers != null && iceServersExpireAt != 0 && SystemClock.elapsedRealtime() >= iceServersExpireAt;
+    }
+
+    /*
+     * A profile picked by network type still dials after its ICE servers expired,
+     * keeping its codecs and ICE transport policy with the SDK default ICE servers.
+     */
+    public void applyTo(ConnectOptions.Builder builder) {
+        if (preferredAudioCodecs != null) {
+            builder.preferAudioCodecs(preferredAudioCodecs);
+        }
+        if (isIceServersExpired()) {
+            Log.w(TAG, "ICE servers of connect profile " + name
+                    + " expired, dialing with the default ICE servers until it is registered again");
+            if (iceTransportPolicyOptions != null) {
+                builder.iceOptions(iceTransportPolicyOptions);
+            }
+        } else if (iceOptions != null) {
+            builder.iceOptions(iceOptions);
+        }
+    }
+
+    // region parse from JS
+    public static ConnectProfile fromReadableMap(String name, ReadableMap profile) {
+        List<AudioCodec> codecs = null;
+        if (profile.hasKey("preferredAudioCodecs") && !profile.isNull("preferredAudioCodecs")) {
+            codecs = audioCodecsFromReadableArray(profile.getArray("preferredAudioCodecs"));
+        }
+
+        String edge = null;
+        if (profile.hasKey("edge") && !profile.isNull("edge")) {
+            edge = profile.getString("edge");
+        }
+
+        String networkType = null;
+        if (profile.hasKey("networkType") && !profile.isNull("networkType")) {
+            networkType = profile.getString("networkType");
+            if (!NETWORK_WIFI.equals(networkType)
+                    && !NETWORK_CELLULAR.equals(networkType)
+                    && !NETWORK_OTHER.equals(networkType)) {
+                throw new IllegalArgumentException("Unknown network type: " + networkType);
+            }
+        }
+
+        Set<IceServer> iceServers = null;
+        long iceServersExpireAt = 0;
+        if (profile.hasKey("iceServers") && !profile.isNull("iceServers")) {
+            iceServers = iceServersFromReadableArray(profile.getArray("iceServers"));
+            if (profile.hasKey("iceServersTtl") && !profile.isNull("iceServersTtl")) {
+                iceServersExpireAt = SystemClock.elapsedRealtime()
+                        + (long) (profile.getDouble("iceServersTtl") * 1000);
+            }
+        }
+
+        IceTransportPolicy iceTransportPolicy = null;
+        if (profile.hasKey("iceTransportPolicy") && !profile.isNull("iceTransportPolicy")) {
+            String policy = profile.getString("iceTransportPolicy");
+            if ("relay".equals(policy)) {
+                iceTransportPolicy = IceTransportPolicy.RELAY;
+            } else if ("all".equals(policy)) {
+                iceTransportPolicy = IceTransportPolicy.ALL;
+            } else {
+                throw new IllegalArgumentException("Unknown ICE transport policy: " + policy);
+            }
+        }
+
+        return new ConnectProfile(name, codecs, edge, networkType, iceServers, iceTransportPolicy, iceServersExpireAt);
+    }
+
+    private static List<AudioCodec> audioCodecsFromReadableArray(ReadableArray array) {
+        List<AudioCodec> codecs = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            String codecName;
+            Integer maxAverageBitrate = null;
+            if (array.getType(i) == ReadableType.Map) {
+                ReadableMap codec = array.getMap(i);
+                codecName = codec.getString("name");
+                if (codec.hasKey("maxAverageBitrate") && !codec.isNull("maxAverageBitrate")) {
+                    maxAverageBitrate = codec.getInt("maxAverageBitrate");
+                }
+            } else {
+                codecName = array.getString(i);
+            }
+
+            if ("opus".equalsIgnoreCase(codecName)) {
+                codecs.add(maxAverageBitrate != null ? new OpusCodec(maxAverageBitrate) : new OpusCodec());
+            } else if ("pcmu".equalsIgnoreCase(codecName)) {
+                codecs.add(new PcmuCodec());
+            } else {
+                throw new IllegalArgumentException("Unknown audio codec: " + codecName);
+            }
+        }
+        return codecs;
+    }
+
+    private static Set<IceServer> iceServersFromReadableArray(ReadableArray servers) {
+        Set<IceServer> iceServers = new HashSet<>();
+        for (int i = 0; i < servers.size(); i++) {
+            ReadableMap server = servers.getMap(i);
+            String url = server.getString("url");
+            if (server.hasKey("username") && !server.isNull("username")) {
+                iceServers.add(new IceServer(url, server.getString("username"), server.getString("password")));
+            } else {
+                iceServers.add(new IceServer(url));
+            }
+        }
+        return iceServers;
+    }
+    // endregion
+}
@@ -0,0 +1,107 @@
+package com.happytheapp.react.RNTwilioVoiceSDK;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.twilio.voice.ConnectOptions;
+import com.twilio.voice.Voice;
+
+import java.util.HashMap;
+
+import static com.happytheapp.react.RNTwilioVoiceSDK.TwilioVoiceSDKModule.TAG;
+
+public class ConnectProfileManager {
+
+    private ConnectivityManager connectivityManager;
+    private final HashMap<String, ConnectProfile> profiles = new HashMap<>();
+    // The latest profile registered for a network type wins
+    private final HashMap<String, ConnectProfile> profilesByNetworkType = new HashMap<>();
+    // Edge the host app had set before a profile edge replaced it, null when not overridden
+    private String hostEdge;
+
+    public ConnectProfileManager(Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public synchronized void register(ConnectProfile profile) {
+        unregister(profile.getName());
+        profiles.put(profile.getName(), profile);
+        if (profile.getNetworkType() != null) {
+            profilesByNetworkType.put(profile.getNetworkType(), profile);
+        }
+    }
+
+    public synchronized void unregister(String name) {
+        ConnectProfile profile = profiles.remove(name);
+        if (profile != null && profile.getNetworkType() != null
+                && profilesByNetworkType.get(profile.getNetworkType()) == profile) {
+            profilesByNetworkType.remove(profile.getNetworkType());
+        }
+    }
+
+    public synchronized ConnectProfile get(String name) {
+        return profiles.get(name);
+    }
+
+    /*
+     * Returns the profile registered last for the current network type, or null
+     * when there is none and the call should use the SDK defaults.
+     */
+    public synchronized ConnectProfile getForActiveNetwork() {
+        String networkType = getActiveNetworkType();
+        if (networkType == null) {
+            return null;
+        }
+        return profilesByNetworkType.get(networkType);
+    }
+
+    public synchronized void apply(ConnectProfile profile, ConnectOptions.Builder builder) {
+        if (profile == null) {
+            return;
+        }
+        // The edge is a global SDK setting, it is put back by restoreEdge when the call ends
+        if (profile.getEdge() != null) {
+            if (hostEdge == null) {
+                hostEdge = Voice.getEdge();
+            }
+            Voice.setEdge(profile.getEdge());
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "connect profile: " + profile.getName() + " edge: " + Voice.getEdge());
+        }
+        profile.applyTo(builder);
+    }
+
+    public synchronized void restoreEdge() {
+        if (hostEdge != null) {
+            Voice.setEdge(hostEdge);
+            hostEdge = null;
+        }
+    }
+
+    private String getActiveNetworkType() {
+        if (connectivityManager == null) {
+            return null;
+        }
+        NetworkInfo networkInfo;
+        try {
+            networkInfo = connectivityManager.getActiveNetworkInfo();
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing ACCESS_NETWORK_STATE permission to select a connect profile");
+            return null;
+        }
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return null;
+        }
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return ConnectProfile.NETWORK_WIFI;
+            case ConnectivityManager.TYPE_MOBILE:
+                return ConnectProfile.NETWORK_CELLULAR;
+            default:
+                return ConnectProfile.NETWORK_OTHER;
+        }
+    }
+}
@@ -19,6 +19,7 @@ public class EventManager {
     public static final String EVENT_RECONNECTED = "reconnect";
     public static final String EVENT_DISCONNECTED = "disconnect";
     public static final String EVENT_RINGING = "ringing";
+    public static final String EVENT_CALL_SNAPSHOT = "callSnapshot";
 
     public EventManager(ReactApplicationContext context) {
         mContext = context;
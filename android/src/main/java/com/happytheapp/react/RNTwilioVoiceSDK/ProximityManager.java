@@ -10,7 +10,6 @@ import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
 //import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.ReactApplicationContext;
 //import com.facebook.react.bridge.WritableMap;
 
 import java.lang.reflect.Field;
@@ -32,7 +31,7 @@ public class ProximityManager {
     private PowerManager powerManager;
 
 
-    public ProximityManager(ReactApplicationContext context) {
+    public ProximityManager(Context context) {
         powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         proximitySensor = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
@@ -4,14 +4,13 @@ import android.media.AudioManager;
 
 import android.util.Log;
 
-import androidx.annotation.NonNull;
-
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.ReadableMap;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import com.facebook.react.bridge.ReactApplicationContext;
@@ -19,36 +18,12 @@ import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 
-import com.twilio.audioswitch.AudioDevice;
-import com.twilio.audioswitch.AudioSwitch;
-import kotlin.Unit;
-import kotlin.jvm.functions.Function2;
-
-import com.twilio.audioswitch.AudioDevice.Speakerphone;
-import com.twilio.audioswitch.AudioDevice.BluetoothHeadset;
-import com.twilio.audioswitch.AudioDevice.WiredHeadset;
-import com.twilio.audioswitch.AudioDevice.Earpiece;
-
 import com.twilio.voice.Call;
-import com.twilio.voice.CallException;
-import com.twilio.voice.ConnectOptions;
-import com.twilio.voice.LogLevel;
 import com.twilio.voice.Voice;
 
-import android.media.MediaPlayer;
-import android.content.res.AssetFileDescriptor;
 import java.io.IOException;
-import java.io.File;
 
 import java.util.HashMap;
-import java.util.List;
-
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RINGING;
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_CONNECTED;
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_CONNECT_FAILURE;
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RECONNECTING;
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_RECONNECTED;
-import static com.happytheapp.react.RNTwilioVoiceSDK.EventManager.EVENT_DISCONNECTED;
 
 public class TwilioVoiceSDKModule extends ReactContextBaseJavaModule
         implements LifecycleEventListener, AudioManager.OnAudioFocusChangeListener {
@@ -56,39 +31,23 @@ public class TwilioVoiceSDKModule extends ReactContextBaseJavaModule
     public static String TAG = "RNTwilioVoiceSDK";
 
     ReactApplicationContext context;
-    private Call.Listener callListener = callListener();
-    private BluetoothHeadset mBluetoothHeadset;
-    private Boolean headsetConnected = false;
-    private Boolean speaker = false;
-    private Call activeCall;
-    private ProximityManager proximityManager;
     private EventManager eventManager;
-    protected MediaPlayer mediaPlayer;
-    private AudioSwitch audioSwitch;
+    private CallManager callManager;
 
     public TwilioVoiceSDKModule(ReactApplicationContext reactContext) {
         super(reactContext);
-        if (BuildConfig.DEBUG) {
-            Voice.setLogLevel(LogLevel.DEBUG);
-        } else {
-            Voice.setLogLevel(LogLevel.ERROR);
-        }
         reactContext.addLifecycleEventListener(this);
         context = reactContext;
         eventManager = new EventManager(reactContext);
-        proximityManager = new ProximityManager(reactContext);
-        audioSwitch = new AudioSwitch(reactContext);
+        // The call outlives this module, which only attaches to it for its React context lifetime
+        callManager = CallManager.getInstance(reactContext);
+        callManager.attach(eventManager);
     }
 
     // region Lifecycle Event Listener
     @Override
     public void onHostResume() {
-        audioSwitch.start(new Function2<List<? extends AudioDevice>, AudioDevice, Unit>() {
-            @Override
-            public Unit invoke(List<? extends AudioDevice> audioDevices, AudioDevice audioDevice) {
-                return Unit.INSTANCE;
-            }
-        });
+        callManager.onHostResume();
         /*
          * Enable changing the volume using the up/down keys during a conversation
          */
@@ -106,129 +65,85 @@ public class TwilioVoiceSDKModule extends ReactContextBaseJavaModule
 
     @Override
     public void onHostDestroy() {
-        disconnect();
-        audioSwitch.stop();
+        callManager.onHostDestroy();
     }
     // endregion
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        context.removeLifecycleEventListener(this);
+        callManager.detach(eventManager);
+    }
+
     @Override
     public String getName() {
         return TAG;
     }
 
-    private Call.Listener callListener() {
-        return new Call.Listener() {
-            @Override
-            public void onConnected(@NonNull Call call) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "CALL CONNECTED callListener().onConnected call state = " + call.getState());
-                }
-                activeCall = call;
-                eventManager.sendEvent(EVENT_CONNECTED, paramsFromCall(call));
-
-                mediaPlayer.pause();
-            }
-
-            @Override
-            public void onReconnecting(@NonNull Call call, @NonNull CallException error) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "reconnecting");
-                }
-                activeCall = call;
-                eventManager.sendEvent(EVENT_RECONNECTING, paramsWithError(call, error));
-            }
-
-            @Override
-            public void onReconnected(@NonNull Call call) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "reconnected");
-                }
-                activeCall = call;
-                eventManager.sendEvent(EVENT_RECONNECTED, paramsFromCall(call));
-            }
-
-            @Override
-            public void onDisconnected(@NonNull Call call, CallException error) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "call disconnected");
-                }
-                activeCall = call;
-                eventManager.sendEvent(EVENT_DISCONNECTED, paramsWithError(call, error));
-                call.disconnect();
-                disconnectCleanup();
-                activeCall = null;
-            }
-
-            @Override
-            public void onConnectFailure(@NonNull Call call, @NonNull CallException error) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "connect failure");
-                }
-                activeCall = call;
-                disconnectCleanup();
-                WritableMap params = paramsWithError(call, error);
-                call.disconnect();
-                activeCall = null;
-                eventManager.sendEvent(EVENT_CONNECT_FAILURE, params);
-            }
+    @Override
+    public void onAudioFocusChange(int focusChange) {
 
-            @Override
-            public void onRinging(@NonNull Call call) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "ringing");
-                }
-                activeCall = call;
-                eventManager.sendEvent(EVENT_RINGING, paramsFromCall(call));
-            }
-        };
     }
 
-    @Override
-    public void onAudioFocusChange(int focusChange) {
+    @ReactMethod
+    public void emitCallSnapshot() {
+        callManager.attach(eventManager);
+        callManager.emitCallSnapshot();
+    }
 
+    @ReactMethod
+    public void setDisconnectOnHostDestroy(Boolean value) {
+        callManager.setDisconnectOnHostDestroy(value);
     }
 
-    protected MediaPlayer createMediaPlayer(final String fileName) {
-        int res = this.context.getResources().getIdentifier(fileName, "raw", this.context.getPackageName());
-        MediaPlayer mediaPlayer = new MediaPlayer();
-        if (res != 0) {
-            try {
-                AssetFileDescriptor afd = this.context.getResources().openRawResourceFd(res);
-                mediaPlayer.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-                afd.close();
-            } catch (IOException e) {
-                Log.e("RNSoundModule", "Exception", e);
-                return null;
-            }
-            return mediaPlayer;
+    @ReactMethod
+    public void registerConnectProfile(String name, ReadableMap profile, Promise promise) {
+        try {
+            callManager.getConnectProfileManager().register(ConnectProfile.fromReadableMap(name, profile));
+            promise.resolve(null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Invalid connect profile " + name, e);
+            promise.reject("invalid_connect_profile", e.getMessage());
         }
+    }
 
-        return null;
+    @ReactMethod
+    public void unregisterConnectProfile(String name) {
+        callManager.getConnectProfileManager().unregister(name);
     }
 
     @ReactMethod
     public void connect(final String accessToken, ReadableMap params, Promise promise) {
-        speaker = false;
+        connectWithProfile(accessToken, params, null, promise);
+    }
 
-        this.mediaPlayer = this.createMediaPlayer("dial_2");
-        try {
-            this.mediaPlayer.prepare();
-        } catch (Exception ignored) {
-            // When loading files from a file, we useMediaPlayer.create, which actually
-            // prepares the audio for us already. So we catch and ignore this error
-            Log.e("RNSoundModule", "Exception", ignored);
+    @ReactMethod
+    public void connectWithProfile(final String accessToken, ReadableMap params, String profileName, Promise promise) {
+        ConnectProfile profile;
+        if (profileName != null) {
+            profile = callManager.getConnectProfileManager().get(profileName);
+            if (profile == null) {
+                promise.reject("no_connect_profile", "There is no connect profile named " + profileName);
+                return;
+            }
+            if (profile.isIceServersExpired()) {
+                promise.reject("ice_servers_expired", "The ICE servers of connect profile " + profileName
+                        + " expired, register the profile again with fresh ICE servers");
+                return;
+            }
+        } else {
+            // Expired ICE servers of an automatic profile are dropped, plain connect always dials
+            profile = callManager.getConnectProfileManager().getForActiveNetwork();
         }
 
         if (BuildConfig.DEBUG) {
             Log.d(TAG, "connect params: " + params);
         }
-        if (activeCall != null) {
+        if (callManager.getActiveCall() != null) {
             promise.reject("already_connected", "Calling connect while a call is connected");
+            return;
         }
 
-        // Enable proximity monitoring
-        proximityManager.startProximitySensor();
-
         // create parameters for call
         HashMap<String, String> twiMLParams = new HashMap<>();
         ReadableMapKeySetIterator iterator = params.keySetIterator();
@@ -255,46 +170,23 @@ public class TwilioVoiceSDKModule extends ReactContextBaseJavaModule
             }
         }
 
-        ConnectOptions connectOptions = new ConnectOptions.Builder(accessToken)
-                .params(twiMLParams)
-                .build();
-        activeCall = Voice.connect(getReactApplicationContext(), connectOptions, callListener);
-        if (activeCall != null) {
-            this.mediaPlayer.setLooping(true);
-            this.mediaPlayer.seekTo(0);
-            this.mediaPlayer.start();
-        }
-        deriveAudioOutputTarget();
-        promise.resolve(paramsFromCall(activeCall));
-    }
-
-    public void disconnectCleanup() {
-        mediaPlayer.pause();
-        audioSwitch.deactivate();
-        setMuted(false);
-        proximityManager.stopProximitySensor();
+        Call call = callManager.connect(accessToken, twiMLParams, profile);
+        promise.resolve(callManager.paramsFromCall(call));
     }
 
     @ReactMethod
     public void disconnect() {
-        if (activeCall != null) {
-            activeCall.disconnect();
-            activeCall = null;
-        }
+        callManager.disconnect();
     }
 
     @ReactMethod
     public void setMuted(Boolean muteValue) {
-        if (activeCall != null) {
-            activeCall.mute(muteValue);
-        }
+        callManager.setMuted(muteValue);
     }
 
     @ReactMethod
     public void sendDigits(String digits) {
-        if (activeCall != null) {
-            activeCall.sendDigits(digits);
-        }
+        callManager.sendDigits(digits);
     }
 
     @ReactMethod
@@ -304,81 +196,86 @@ public class TwilioVoiceSDKModule extends ReactContextBaseJavaModule
 
     @ReactMethod
     public void getActiveCall(Promise promise) {
+        Call activeCall = callManager.getActiveCall();
         if (activeCall != null) {
             if (BuildConfig.DEBUG) {
                 Log.d(TAG, "Active call found state = " + activeCall.getState());
             }
-            promise.resolve(paramsFromCall(activeCall));
+            promise.resolve(callManager.paramsFromCall(activeCall));
             return;
         }
         promise.reject("no_call", "There was no active call");
     }
 
-    private void deriveAudioOutputTarget() {
-        if (speaker) {
-            audioSwitch.selectDevice(new Speakerphone());
-        } else {
-            List<AudioDevice> devices = audioSwitch.getAvailableAudioDevices();
-            Boolean bt = false;
-            Boolean wired = false;
-
-            for (AudioDevice dev : devices) {
-                if (dev instanceof BluetoothHeadset) {
-                    bt = true;
-                } else if (dev instanceof WiredHeadset) {
-                    wired = true;
-                }
+    @ReactMethod
+    public void queryCallHistory(double from, double to, int limit, String cursor, Promise promise) {
+        try {
+            CallHistoryStore.Page page = callManager.getCallHistoryStore().query((long) from, (long) to, limit, cursor);
+            WritableArray records = Arguments.createArray();
+            for (CallHistoryStore.Record record : page.records) {
+                records.pushMap(paramsFromCallHistoryRecord(record));
             }
-
-            if (bt) {
-                audioSwitch.selectDevice(new BluetoothHeadset());
-            } else if (wired) {
-                audioSwitch.selectDevice(new WiredHeadset());
+            WritableMap params = Arguments.createMap();
+            params.putArray("records", records);
+            if (page.nextCursor != null) {
+                params.putString("nextCursor", page.nextCursor);
             } else {
-                audioSwitch.selectDevice(new Earpiece());
+                params.putNull("nextCursor");
             }
+            promise.resolve(params);
+        } catch (IllegalArgumentException e) {
+            promise.reject("invalid_call_history_query", e.getMessage());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to query call history", e);
+            promise.reject("call_history_error", e.getMessage());
         }
-        audioSwitch.activate();
     }
 
     @ReactMethod
-    public void setSpeakerPhone(Boolean value) {
-        speaker = value;
-        deriveAudioOutputTarget();
+    public void getCallHistoryRecord(String sid, Promise promise) {
+        try {
+            CallHistoryStore.Record record = callManager.getCallHistoryStore().findBySid(sid);
+            if (record == null) {
+                promise.reject("no_call_history_record", "There was no call history record for " + sid);
+                return;
+            }
+            promise.resolve(paramsFromCallHistoryRecord(record));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read call history", e);
+            promise.reject("call_history_error", e.getMessage());
+        }
     }
 
-    private void disableSpeakerPhone() {
-        // audioFocusManager.setSpeakerPhone(false);
+    @ReactMethod
+    public void setSpeakerPhone(Boolean value) {
+        callManager.setSpeakerPhone(value);
     }
 
     // region create JSObjects helpers
-    private WritableMap paramsFromCall(Call call) {
+    private WritableMap paramsFromCallHistoryRecord(CallHistoryStore.Record record) {
         WritableMap params = Arguments.createMap();
-        if (call != null) {
-            if (call.getSid() != null) {
-                params.putString("sid", call.getSid());
-            }
-            if (call.getFrom() != null) {
-                params.putString("from", activeCall.getFrom());
-            }
-            if (call.getTo() != null) {
-                params.putString("to", activeCall.getTo());
-            }
-            params.putString("state", call.getState().name());
+        if (record.sid != null) {
+            params.putString("sid", record.sid);
         }
-        return params;
-    }
-
-    private WritableMap paramsWithError(Call call, CallException error) {
-        WritableMap params = paramsFromCall(call);
-        if (error != null) {
-            Log.e(TAG, String.format("CallListener onDisconnected error: %d, %s",
-                    error.getErrorCode(), error.getMessage()));
+        if (record.from != null) {
+            params.putString("from", record.from);
+        }
+        if (record.to != null) {
+            params.putString("to", record.to);
+        }
+        params.putDouble("startedAt", record.startedAt);
+        if (record.connectedAt > 0) {
+            params.putDouble("connectedAt", record.connectedAt);
+        }
+        params.putDouble("endedAt", record.endedAt);
+        params.putDouble("duration", record.getDuration());
+        if (record.errorCode != 0) {
             WritableMap errorParams = Arguments.createMap();
-            errorParams.putInt("code", error.getErrorCode());
-            errorParams.putString("message", error.getLocalizedMessage());
+            errorParams.putInt("code", record.errorCode);
+            errorParams.putString("message", record.errorMessage);
             params.putMap("error", errorParams);
         }
         return params;
     }
+    // endregion
 }
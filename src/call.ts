@@ -7,6 +7,8 @@ type callState = "RINGING" | "CONNECTING" | "CONNECTED" | "RECONNECTING" | "DISC
 
 export interface nativeCallObject extends nativeCallBase {
   state: callState,
+  muted?: boolean,
+  speaker?: boolean,
   error?: {
     code?: number,
     domain?: string,
@@ -75,6 +77,12 @@ class Call extends AbstractCall {
   private updateFromNative = (call: nativeCallObject) => {
     this.updateFromNativeCallObject(call)
     this._state = call.state
+    if (call.muted !== undefined) {
+      this._isMuted = call.muted
+    }
+    if (call.speaker !== undefined) {
+      this._onSpeaker = call.speaker
+    }
   }
 
 }
@@ -0,0 +1,19 @@
+export interface callHistoryRecord {
+  sid?: string,
+  from?: string,
+  to?: string,
+  startedAt: number,
+  connectedAt?: number,
+  endedAt: number,
+  duration: number,
+  error?: {
+    code?: number,
+    message?: string,
+  }
+}
+
+export interface callHistoryPage {
+  records: Array<callHistoryRecord>,
+  // opaque, pass it back with the same range to fetch the next page, null on the last page
+  nextCursor: string | null,
+}
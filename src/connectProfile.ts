@@ -0,0 +1,24 @@
+type audioCodec = "opus" | "pcmu"
+
+export type networkType = "wifi" | "cellular" | "other"
+
+export interface iceServer {
+  url: string,
+  username?: string,
+  password?: string,
+}
+
+export interface connectProfile {
+  // in order of preference, maxAverageBitrate is in bits per second and only applies to opus
+  preferredAudioCodecs?: Array<audioCodec | { name: audioCodec, maxAverageBitrate?: number }>,
+  iceServers?: Array<iceServer>,
+  iceTransportPolicy?: "all" | "relay",
+  // seconds the ICE servers are valid for, after that connecting with the profile by name
+  // rejects with "ice_servers_expired" until it is registered again, while calls that pick
+  // it by network type dial with the default ICE servers
+  iceServersTtl?: number,
+  // Twilio edge location, e.g. "ashburn", "dublin", "roaming"
+  edge?: string,
+  // the profile is used automatically for calls made on this network type
+  networkType?: networkType,
+}
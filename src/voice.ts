@@ -4,6 +4,8 @@ import Call, {nativeCallObject} from './call'
 import CallInvite from "./callInvite"
 import CancelledCallInvite from "./cancelledCallInvite"
 import CallError from "./callError"
+import {callHistoryPage, callHistoryRecord} from "./callHistory"
+import {connectProfile} from "./connectProfile"
 
 const version = require('../package.json').version
 
@@ -43,6 +45,7 @@ class TwilioVoice {
   // private _currentInvite: CallInvite | null = null
   private _nativeAppEventEmitter = new NativeEventEmitter(RNTwilioVoice)
   private _internalEventHandlers: internalVoiceEventHandlers = {}
+  private _callSnapshotSubscription: EmitterSubscription | null = null
   private _eventHandlers: voiceEventHandlers = {}
   private _isSetup: boolean = false
   private _nativeVersion: string | undefined
@@ -71,21 +74,76 @@ class TwilioVoice {
     return "OFFLINE"
   }
 
-  public connect = (accessToken: string, params = {}): Promise<Call> => {
+  // When no profile is given, Android picks the profile registered for the current network type
+  public connect = (accessToken: string, params = {}, profile?: string): Promise<Call> => {
     if(!this._isSetup) {
       return Promise.reject(new Error("Can't call connect on a destroyed Voice instance"));
     }
     if(this._currentCall !== null) {
       return Promise.reject(new Error("Can't call connect while a call is still going on"));
     }
+    if(profile !== undefined && RNTwilioVoice.connectWithProfile === undefined) {
+      return Promise.reject(new Error("Connect profiles are not supported on this platform"))
+    }
+    const nativeConnect: Promise<Call> = profile !== undefined
+      ? RNTwilioVoice.connectWithProfile(accessToken, params, profile)
+      : RNTwilioVoice.connect(accessToken, params)
     return new Promise((resolve, reject) => {
-      RNTwilioVoice.connect(accessToken, params).then((call: Call) => {
+      nativeConnect.then((call: Call) => {
         this.createOrUpdateCall(call)
         resolve(this._currentCall as Call)
       }).catch((err: any) => reject(err))
     })
   }
 
+  // Resolves the ongoing call, including one that outlived a previous JS bundle, or null
+  public getCurrentCall = (): Promise<Call | null> => {
+    return RNTwilioVoice.getActiveCall()
+      .then((call: nativeCallObject) => {
+        this.createOrUpdateCall(call)
+        return this._currentCall
+      }).catch(() => {
+        // the only rejection is that there is no active call
+        this._currentCall = null
+        return null
+      })
+  }
+
+  // Calls survive JS reloads by default, set this to end them when the host Activity is destroyed
+  public setDisconnectOnHostDestroy = (value: boolean): void => {
+    if(RNTwilioVoice.setDisconnectOnHostDestroy !== undefined) {
+      RNTwilioVoice.setDisconnectOnHostDestroy(value)
+    }
+  }
+
+  public registerConnectProfile = (name: string, profile: connectProfile): Promise<void> => {
+    if(RNTwilioVoice.registerConnectProfile === undefined) {
+      return Promise.reject(new Error("Connect profiles are not supported on this platform"))
+    }
+    return RNTwilioVoice.registerConnectProfile(name, profile)
+  }
+
+  public unregisterConnectProfile = (name: string): void => {
+    if(RNTwilioVoice.unregisterConnectProfile !== undefined) {
+      RNTwilioVoice.unregisterConnectProfile(name)
+    }
+  }
+
+  // Records are returned newest first, ended between `from` (inclusive) and `to` (exclusive)
+  public queryCallHistory = (from = 0, to = Number.MAX_SAFE_INTEGER, limit = 50, cursor: string | null = null): Promise<callHistoryPage> => {
+    if(RNTwilioVoice.queryCallHistory === undefined) {
+      return Promise.reject(new Error("Call history is not supported on this platform"))
+    }
+    return RNTwilioVoice.queryCallHistory(from, to, limit, cursor)
+  }
+
+  public getCallHistoryRecord = (sid: string): Promise<callHistoryRecord> => {
+    if(RNTwilioVoice.getCallHistoryRecord === undefined) {
+      return Promise.reject(new Error("Call history is not supported on this platform"))
+    }
+    return RNTwilioVoice.getCallHistoryRecord(sid)
+  }
+
   public destroy = () => {
     this.disconnectAll()
     this._eventHandlers = {}
@@ -149,6 +207,11 @@ class TwilioVoice {
   private setup = () => {
     this.addInternalCallEventHandlers()
     this._isSetup = true
+    // Pick up a call that outlived a previous JS bundle, the snapshot is not sent to app handlers
+    if(RNTwilioVoice.emitCallSnapshot !== undefined) {
+      this._callSnapshotSubscription = this._nativeAppEventEmitter.addListener("callSnapshot", this.onCallSnapshot)
+      RNTwilioVoice.emitCallSnapshot()
+    }
   }
 
   private addInternalCallEventHandlers = () => {
@@ -177,6 +240,10 @@ class TwilioVoice {
         delete this._internalEventHandlers[event]
       }
     }
+    if(this._callSnapshotSubscription !== null) {
+      this._callSnapshotSubscription.remove()
+      this._callSnapshotSubscription = null
+    }
   }
 
   private handleEvent = (eventName: voiceEvent, ...args: any[]) => {
@@ -244,6 +311,10 @@ class TwilioVoice {
     this.handleEvent("reconnecting", this._currentCall, error)
   }
 
+  private onCallSnapshot = (nativeCallObject: nativeCallObject) => {
+    this.createOrUpdateCall(nativeCallObject)
+  }
+
   private onRinging = (nativeCallObject: nativeCallObject) => {
     this.parseNativeCallObject(nativeCallObject)
     this.handleEvent("ringing", this._currentCall)